@@ -1,5 +1,7 @@
 package brendanddev.model;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -14,6 +16,7 @@ public class HttpRequest {
     private final String path;
     private final String httpVersion;
     private final Map<String, String> headers;
+    private List<MultipartPart> parts = new ArrayList<>();
 
     /**
      * Constructs a new HttpRequest with the specified method, path, HTTP version, and headers.
@@ -50,6 +53,31 @@ public class HttpRequest {
         return headers;
     }
 
+    // Returns the parts of a multipart/form-data request, or an empty list for other requests
+    public List<MultipartPart> getParts() {
+        return parts;
+    }
+
+    // Sets the parts parsed from a multipart/form-data request body
+    public void setParts(List<MultipartPart> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Returns the first multipart part with the given form field name.
+     *
+     * @param name The form field name to look up.
+     * @return The matching MultipartPart, or null if no part has that name.
+     */
+    public MultipartPart getPart(String name) {
+        for (MultipartPart part : parts) {
+            if (name.equals(part.getName())) {
+                return part;
+            }
+        }
+        return null;
+    }
+
     // Returns a string representation of the HTTP request
     @Override
     public String toString() {
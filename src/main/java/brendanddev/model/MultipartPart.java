@@ -0,0 +1,139 @@
+package brendanddev.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * A class representing a single part of a multipart/form-data request body.
+ *
+ * Small parts are kept in memory as a byte array, while parts larger than the
+ * parser's memory threshold are spooled to a temporary file on disk. Callers should
+ * use getInputStream() or getBytes() to access the content regardless of where it is stored.
+ */
+public class MultipartPart {
+
+    private final String name;
+    private final String filename;
+    private final String contentType;
+    private final Map<String, String> headers;
+    private final byte[] data;
+    private final Path file;
+    private final long size;
+
+    /**
+     * Constructs a new MultipartPart with the specified headers and content.
+     *
+     * @param name The form field name from the Content-Disposition header.
+     * @param filename The original file name, or null if the part is a plain form field.
+     * @param contentType The Content-Type of the part, or null if none was sent.
+     * @param headers A map of all headers sent with the part.
+     * @param data The in memory content of the part, or null if the part was spooled to disk.
+     * @param file The temporary file holding the content, or null if the part is held in memory.
+     * @param size The size of the part content in bytes.
+     */
+    public MultipartPart(String name, String filename, String contentType, Map<String, String> headers,
+                         byte[] data, Path file, long size) {
+        this.name = name;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.headers = headers;
+        this.data = data;
+        this.file = file;
+        this.size = size;
+    }
+
+    // Returns the form field name of the part
+    public String getName() {
+        return name;
+    }
+
+    // Returns the original file name of the part, or null for plain form fields
+    public String getFilename() {
+        return filename;
+    }
+
+    // Returns the Content-Type of the part, or null if none was sent
+    public String getContentType() {
+        return contentType;
+    }
+
+    // Returns the headers of the part as a map
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    // Returns the size of the part content in bytes
+    public long getSize() {
+        return size;
+    }
+
+    // Returns true if the part content is held in memory rather than on disk
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    // Returns the temporary file holding the part content, or null if the part is held in memory
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Opens a stream over the part content, reading from memory or from the spooled file.
+     *
+     * @return An InputStream over the part content.
+     * @throws IOException If the spooled file cannot be opened.
+     */
+    public InputStream getInputStream() throws IOException {
+        return isInMemory() ? new ByteArrayInputStream(data) : Files.newInputStream(file);
+    }
+
+    /**
+     * Returns the full part content as a byte array.
+     *
+     * For spooled parts this reads the whole file into memory, so it should only
+     * be used when the part is known to be small.
+     *
+     * @return The part content.
+     * @throws IOException If the spooled file cannot be read.
+     */
+    public byte[] getBytes() throws IOException {
+        return isInMemory() ? data : Files.readAllBytes(file);
+    }
+
+    /**
+     * Returns the part content decoded as a UTF-8 string.
+     *
+     * @return The part content as a String.
+     * @throws IOException If the spooled file cannot be read.
+     */
+    public String getString() throws IOException {
+        return new String(getBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the temporary file backing this part, if any.
+     */
+    public void delete() {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns a string representation of the multipart part
+    @Override
+    public String toString() {
+        return name + (filename != null ? " (" + filename + ")" : "") + " " + size + " bytes"
+                + (isInMemory() ? "" : " at " + file);
+    }
+
+}
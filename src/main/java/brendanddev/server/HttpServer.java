@@ -1,15 +1,21 @@
 package brendanddev.server;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import brendanddev.model.HttpRequest;
+import brendanddev.model.MultipartPart;
 
 /**
  * A simple HTTP server implemented from scratch in Java.
@@ -19,9 +25,20 @@ import brendanddev.model.HttpRequest;
  */
 public class HttpServer {
 
+    // Limits applied while reading the request line, headers, and non-multipart bodies
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final int MAX_STRING_BODY_SIZE = 1024 * 1024;
+
     private int port;
     private final Map<String, HttpHandler> routes = new HashMap<>();
-    
+
+    // Limits applied to multipart/form-data request bodies
+    private long multipartMemoryThreshold = 64 * 1024;
+    private long multipartMaxMemorySize = 1024 * 1024;
+    private long multipartMaxPartSize = 10 * 1024 * 1024;
+    private long multipartMaxTotalSize = 50 * 1024 * 1024;
+    private Path multipartTempDir = null;
 
     // Constructs an HttpServer that listens on the specified port
     public HttpServer(int port) {
@@ -57,6 +74,28 @@ public class HttpServer {
         routes.put(method.toUpperCase() + " " + path, handler);
     }
 
+    /**
+     * Configures how multipart/form-data request bodies are buffered and limited.
+     * 
+     * Parts up to the memory threshold are handed to handlers in memory, as long as the
+     * parts held in memory for a request stay within the memory cap. Everything else is
+     * spooled to temporary files which are deleted once the response has been sent.
+     * 
+     * @param memoryThreshold The largest part size in bytes that is kept in memory.
+     * @param maxMemorySize The largest total size in bytes of all parts kept in memory for one request.
+     * @param maxPartSize The largest accepted size in bytes of a single part.
+     * @param maxTotalSize The largest accepted size in bytes of the whole request body.
+     * @param tempDir The directory to spool large parts into, or null for the system default.
+     */
+    public void setMultipartLimits(long memoryThreshold, long maxMemorySize, long maxPartSize, long maxTotalSize,
+                                   Path tempDir) {
+        this.multipartMemoryThreshold = memoryThreshold;
+        this.multipartMaxMemorySize = maxMemorySize;
+        this.multipartMaxPartSize = maxPartSize;
+        this.multipartMaxTotalSize = maxTotalSize;
+        this.multipartTempDir = tempDir;
+    }
+
 
     /**
      * Handles a single client connection by reading the HTTP request and sending a simple HTTP response.
@@ -64,42 +103,42 @@ public class HttpServer {
      * @param socket The client socket to handle.
      */
     private void handleClient(Socket socket) {
+        HttpRequest request = null;
         try (
-            // Reader for reading incoming HTTP requests from the client
+            // Raw byte stream for reading incoming HTTP requests, so binary bodies are not decoded as chars
             // Writer for sending HTTP responses to the client
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
             PrintWriter out = new PrintWriter(socket.getOutputStream());
         ) {
-            // Parse incoming HTTP request into an HttpRequest object
-            HttpRequest request = parseRequest(in);
-            System.out.println("Received request: " + request);
-
-            // Read body for POST/PUT requests if content-length header is set
-            int contentLength = 0;
-            String contentLengthHeader = request.getHeaders().get("Content-Length");
-            if (contentLengthHeader != null) {
-                contentLength = Integer.parseInt(contentLengthHeader);
+            HttpResponse response;
+            try {
+                // Parse incoming HTTP request into an HttpRequest object
+                request = parseRequest(in);
+                if (request == null) {
+                    // Client closed the connection without sending a request
+                    socket.close();
+                    return;
+                }
+                System.out.println("Received request: " + request);
+                response = null;
+            } catch (IOException e) {
+                // Reject malformed request lines and headers
+                System.out.println("Rejected request: " + e.getMessage());
+                response = errorResponse(400, "Bad Request");
             }
 
-            // Prepare char array to store the request body
-            char[] bodyChars = new char[contentLength];
-            if (contentLength > 0) {
-                // Read body from the input stream
-                in.read(bodyChars, 0, contentLength);
-            }
-            // Convert char array to String
-            String body = new String(bodyChars);
-
-            // Lookup the registered route handler for this HTTP method and path
-            HttpHandler handler = routes.get(request.getMethod().toUpperCase() + " " + request.getPath());
-            HttpResponse response;
-            
-            if (handler != null) {
-                // If a handler exists for the request, use it to generate a response
-                response = handler.handle(request, body);
-            } else {
-                // If no handler found, return 404 Not Found
-                response = new HttpResponse("<h1>404 Not Found</h1>", 404, "Not Found");
+            if (response == null) {
+                try {
+                    response = handleRequest(request, in);
+                } catch (MultipartException e) {
+                    // Reject multipart bodies with the status chosen by the parser
+                    System.out.println("Rejected multipart body: " + e.getMessage());
+                    response = errorResponse(e.getStatusCode(), e.getStatusText());
+                } catch (IOException e) {
+                    // Failures while reading or storing the body are not the client's fault
+                    e.printStackTrace();
+                    response = errorResponse(500, "Internal Server Error");
+                }
             }
             
             // Convert body to bytes
@@ -124,47 +163,168 @@ public class HttpServer {
 
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            // Remove any temporary files spooled for multipart parts
+            if (request != null) {
+                for (MultipartPart part : request.getParts()) {
+                    part.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the request body and dispatches the request to its registered route handler.
+     * 
+     * The route is looked up first, so requests without a handler are answered with 404
+     * before any of their body is read or spooled to disk. multipart/form-data bodies are
+     * parsed part by part and attached to the request, any other body is read in full and
+     * passed to the handler as a UTF-8 string.
+     * 
+     * @param request The parsed HttpRequest, whose headers are looked up case insensitively.
+     * @param in The input stream positioned at the start of the request body.
+     * @return The HttpResponse to send back to the client.
+     * @throws IOException If the body is malformed, exceeds a size limit, or cannot be read.
+     */
+    private HttpResponse handleRequest(HttpRequest request, InputStream in) throws IOException {
+        // Lookup the registered route handler for this HTTP method and path
+        HttpHandler handler = routes.get(request.getMethod().toUpperCase() + " " + request.getPath());
+
+        if (handler == null) {
+            // If no handler found, return 404 Not Found
+            return new HttpResponse("<h1>404 Not Found</h1>", 404, "Not Found");
+        }
+
+        // Read body for POST/PUT requests if content-length header is set
+        long contentLength = 0;
+        String contentLengthHeader = request.getHeaders().get("Content-Length");
+        if (contentLengthHeader != null) {
+            try {
+                contentLength = Long.parseLong(contentLengthHeader.trim());
+            } catch (NumberFormatException e) {
+                contentLength = -1;
+            }
+        }
+        if (contentLength < 0) {
+            return errorResponse(400, "Bad Request");
+        }
+
+        String body = "";
+        String contentType = request.getHeaders().get("Content-Type");
+        if (MultipartParser.isMultipartFormData(contentType)) {
+            String boundary = MultipartParser.extractBoundary(contentType);
+            if (boundary == null) {
+                return errorResponse(400, "Bad Request");
+            }
+            // Stream multipart bodies part by part, spooling large parts to disk
+            MultipartParser parser = new MultipartParser(boundary, multipartMemoryThreshold,
+                    multipartMaxMemorySize, multipartMaxPartSize, multipartMaxTotalSize, multipartTempDir);
+            request.setParts(parser.parse(in, contentLength));
+        } else if (contentLength > MAX_STRING_BODY_SIZE) {
+            // Other bodies are held in memory as a String, so only small ones are accepted
+            return errorResponse(413, "Payload Too Large");
+        } else if (contentLength > 0) {
+            // Read the exact number of body bytes and decode them as UTF-8
+            body = new String(in.readNBytes((int) contentLength), StandardCharsets.UTF_8);
+        }
+
+        try {
+            // If a handler exists for the request, use it to generate a response
+            return handler.handle(request, body);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return errorResponse(500, "Internal Server Error");
         }
     }
 
+    // Builds a simple HTML response for an error status
+    private HttpResponse errorResponse(int statusCode, String statusText) {
+        return new HttpResponse("<h1>" + statusCode + " " + statusText + "</h1>", statusCode, statusText);
+    }
+
 
     /**
      * Parses the HTTP request from the input stream and constructs an HttpRequest object.
      * 
-     * @param in The BufferedReader connected to the client socket.
-     * @return HttpRequest object containing the parsed request data.
-     * @throws Exception If an error occurs while reading the request.
+     * Header names are stored case insensitively, so lookups such as "Content-Length"
+     * match however the client capitalized them.
+     * 
+     * @param in The input stream connected to the client socket.
+     * @return HttpRequest object containing the parsed request data, or null if the client sent nothing.
+     * @throws IOException If the request line or headers are malformed or cannot be read.
      */
-    private HttpRequest parseRequest(BufferedReader in) throws Exception {
+    private HttpRequest parseRequest(InputStream in) throws IOException {
 
         // Reads the request line from the input stream
-        String requestLine = in.readLine();
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return null;
+        }
 
         // Splits the request line into parts
         String[] requestParts = requestLine.split(" ");
+        if (requestParts.length != 3) {
+            throw new IOException("Malformed request line: " + requestLine);
+        }
         String method = requestParts[0];
         String path = requestParts[1];
         String httpVersion = requestParts[2];
 
         // Read headers until a blank line is encountered
-        Map<String, String> headers = new HashMap<>();
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int headerCount = 0;
         String line;
-        while (!(line = in.readLine()).isEmpty()) {
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
             int colonIndex = line.indexOf(":");
+            if (colonIndex < 0) {
+                throw new IOException("Malformed header: " + line);
+            }
+            // Count lines rather than map entries, since repeated names replace each other
+            if (++headerCount > MAX_HEADERS) {
+                throw new IOException("Too many headers");
+            }
             headers.put(line.substring(0, colonIndex).trim(),
                     line.substring(colonIndex + 1).trim());
         }
+        if (line == null) {
+            throw new IOException("Unexpected end of request headers");
+        }
 
         // Return a fully populated HttpRequest object
         return new HttpRequest(method, path, httpVersion, headers);
     }
 
+    /**
+     * Reads a single line from the input stream, byte by byte, up to a LF terminator.
+     * 
+     * Reading bytes directly rather than through a Reader leaves the stream positioned
+     * exactly at the start of the body, so binary bodies can be read without corruption.
+     * 
+     * @param in The input stream connected to the client socket.
+     * @return The line without its CRLF terminator, or null if the stream ended before any bytes were read.
+     * @throws IOException If the line is too long, the stream ends mid-line, or reading fails.
+     */
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Request line or header too long");
+            }
+            line.write(b);
+        }
+        if (b == -1) {
+            if (line.size() == 0) {
+                return null;
+            }
+            throw new IOException("Unexpected end of request headers");
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
 
-
-
-
-
-
-
-    
 }
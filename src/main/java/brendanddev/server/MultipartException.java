@@ -0,0 +1,41 @@
+package brendanddev.server;
+
+import java.io.IOException;
+
+/**
+ * Signals that a multipart/form-data request body could not be accepted.
+ *
+ * Carries the HTTP status code and status text that the server should send back
+ * to the client, such as 400 for a malformed body or 413 when a size limit is exceeded.
+ */
+public class MultipartException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String statusText;
+
+    /**
+     * Constructs a new MultipartException with the specified status and detail message.
+     *
+     * @param statusCode The HTTP status code to respond with.
+     * @param statusText The HTTP status text corresponding to the status code.
+     * @param message The detail message describing the problem.
+     */
+    public MultipartException(int statusCode, String statusText, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+    }
+
+    // Returns the HTTP status code to respond with
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    // Returns the HTTP status text to respond with
+    public String getStatusText() {
+        return statusText;
+    }
+
+}
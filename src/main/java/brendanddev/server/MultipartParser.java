@@ -0,0 +1,456 @@
+package brendanddev.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import brendanddev.model.MultipartPart;
+
+/**
+ * An incremental parser for multipart/form-data request bodies.
+ *
+ * The parser scans the raw byte stream for boundaries through a fixed size buffer.
+ * Parts up to the memory threshold are kept in memory until the parts held in memory
+ * reach the memory cap, after which every further part is spooled to a temporary file
+ * through a FileChannel. Together with the limits on header lines, headers per part, and
+ * parts per request, this keeps heap use bounded regardless of how large the upload is.
+ * Per-part and total size limits are enforced as data arrives.
+ */
+public class MultipartParser {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_LINE = 4096;
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+    private static final int MAX_PART_HEADERS = 32;
+    private static final int MAX_PARTS = 1000;
+
+    private final byte[] delimiter;
+    private final long memoryThreshold;
+    private final long maxMemorySize;
+    private final long maxPartSize;
+    private final long maxTotalSize;
+    private final Path tempDir;
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private InputStream in;
+    private long remaining;
+    private long memoryUsed;
+
+    /**
+     * Constructs a new MultipartParser for the given boundary and limits.
+     *
+     * @param boundary The boundary parameter from the request Content-Type header.
+     * @param memoryThreshold The largest part size in bytes that is kept in memory.
+     * @param maxMemorySize The largest total size in bytes of all parts kept in memory.
+     * @param maxPartSize The largest accepted size in bytes of a single part.
+     * @param maxTotalSize The largest accepted size in bytes of the whole request body.
+     * @param tempDir The directory to spool large parts into, or null for the system default.
+     * @throws MultipartException If the boundary is missing or too long.
+     */
+    public MultipartParser(String boundary, long memoryThreshold, long maxMemorySize, long maxPartSize,
+                           long maxTotalSize, Path tempDir) throws MultipartException {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH) {
+            throw new MultipartException(400, "Bad Request", "Invalid multipart boundary: " + boundary);
+        }
+        // Every boundary after the first is preceded by CRLF, which belongs to the delimiter
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.memoryThreshold = memoryThreshold;
+        this.maxMemorySize = maxMemorySize;
+        this.maxPartSize = maxPartSize;
+        this.maxTotalSize = maxTotalSize;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Checks whether a Content-Type header names the multipart/form-data media type.
+     *
+     * @param contentType The value of the Content-Type header, or null if none was sent.
+     * @return True if the media type is multipart/form-data, compared case insensitively.
+     */
+    public static boolean isMultipartFormData(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mediaType = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+        return mediaType.trim().equalsIgnoreCase("multipart/form-data");
+    }
+
+    /**
+     * Extracts the boundary parameter from a multipart/form-data Content-Type header.
+     *
+     * @param contentType The value of the Content-Type header.
+     * @return The boundary, or null if the header is not multipart/form-data or has no boundary.
+     */
+    public static String extractBoundary(String contentType) {
+        if (!isMultipartFormData(contentType)) {
+            return null;
+        }
+        String boundary = parseParameter(contentType, "boundary");
+        return boundary == null || boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * Parses a multipart/form-data body from the input stream.
+     *
+     * Exactly contentLength bytes are read at most, so the stream can be shared with the
+     * rest of the connection. If parsing fails, any temporary files already written are deleted.
+     *
+     * @param in The input stream positioned at the start of the request body.
+     * @param contentLength The value of the request Content-Length header.
+     * @return The list of parsed parts in the order they appeared in the body.
+     * @throws IOException If the body is malformed, exceeds a size limit, or cannot be read.
+     */
+    public List<MultipartPart> parse(InputStream in, long contentLength) throws IOException {
+        if (contentLength > maxTotalSize) {
+            throw new MultipartException(413, "Payload Too Large",
+                    "Request body of " + contentLength + " bytes exceeds limit of " + maxTotalSize);
+        }
+        this.in = in;
+        this.remaining = contentLength;
+        this.memoryUsed = 0;
+
+        // Pretend the body starts with CRLF so the first boundary matches the same delimiter
+        // as the rest, and everything before it is discarded as preamble
+        buf[0] = '\r';
+        buf[1] = '\n';
+        pos = 0;
+        limit = 2;
+
+        List<MultipartPart> parts = new ArrayList<>();
+        try {
+            readUntilDelimiter(null);
+            while (!readBoundaryEnd()) {
+                if (parts.size() >= MAX_PARTS) {
+                    throw new MultipartException(413, "Payload Too Large",
+                            "Multipart body has more than " + MAX_PARTS + " parts");
+                }
+                parts.add(readPart());
+            }
+        } catch (IOException | RuntimeException e) {
+            for (MultipartPart part : parts) {
+                part.delete();
+            }
+            throw e;
+        }
+        return parts;
+    }
+
+    /**
+     * Reads the headers and content of a single part following a boundary line.
+     *
+     * @return The parsed MultipartPart.
+     * @throws IOException If the part is malformed, too large, or cannot be spooled.
+     */
+    private MultipartPart readPart() throws IOException {
+        // Read part headers until a blank line is encountered
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int headerCount = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colonIndex = line.indexOf(":");
+            if (colonIndex < 0) {
+                throw new MultipartException(400, "Bad Request", "Malformed part header: " + line);
+            }
+            // Count lines rather than map entries, since repeated names replace each other
+            if (++headerCount > MAX_PART_HEADERS) {
+                throw new MultipartException(400, "Bad Request",
+                        "Part has more than " + MAX_PART_HEADERS + " headers");
+            }
+            headers.put(line.substring(0, colonIndex).trim(), line.substring(colonIndex + 1).trim());
+        }
+
+        String disposition = headers.get("Content-Disposition");
+        String name = disposition != null ? parseParameter(disposition, "name") : null;
+        if (name == null) {
+            throw new MultipartException(400, "Bad Request", "Part is missing a Content-Disposition name");
+        }
+        String filename = parseParameter(disposition, "filename");
+
+        PartSink sink = new PartSink();
+        try {
+            readUntilDelimiter(sink);
+            sink.close();
+        } catch (IOException | RuntimeException e) {
+            sink.discard();
+            throw e;
+        }
+        return new MultipartPart(name, filename, headers.get("Content-Type"), headers,
+                sink.memory != null ? sink.memory.toByteArray() : null, sink.file, sink.size);
+    }
+
+    /**
+     * Consumes the bytes following a delimiter and reports whether it was the closing boundary.
+     *
+     * @return True if the closing boundary was reached, false if another part follows.
+     * @throws IOException If the boundary line is malformed or the body ends early.
+     */
+    private boolean readBoundaryEnd() throws IOException {
+        ensure(2);
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            pos += 2;
+            return true;
+        }
+        // Boundary lines may carry trailing whitespace before the CRLF
+        String rest = readLine();
+        if (!rest.trim().isEmpty()) {
+            throw new MultipartException(400, "Bad Request", "Malformed multipart boundary line");
+        }
+        return false;
+    }
+
+    /**
+     * Scans forward for the next delimiter, passing the bytes before it to the sink.
+     *
+     * Bytes that cannot be the start of a delimiter are handed off as soon as they are
+     * seen, so at most one delimiter length of data is held back between reads.
+     *
+     * @param sink The sink to write content bytes to, or null to discard them.
+     * @throws IOException If the body ends before a delimiter is found or the sink fails.
+     */
+    private void readUntilDelimiter(PartSink sink) throws IOException {
+        while (true) {
+            int index = indexOfDelimiter();
+            if (index >= 0) {
+                emit(sink, index - pos);
+                pos = index + delimiter.length;
+                return;
+            }
+            // Keep the tail that could still be the start of a delimiter split across reads
+            int safe = Math.max(pos, limit - delimiter.length + 1);
+            emit(sink, safe - pos);
+            pos = safe;
+            if (!fill()) {
+                throw new MultipartException(400, "Bad Request", "Unexpected end of multipart body");
+            }
+        }
+    }
+
+    // Writes len bytes from the current buffer position to the sink, if any
+    private void emit(PartSink sink, int len) throws IOException {
+        if (sink != null && len > 0) {
+            sink.write(buf, pos, len);
+        }
+    }
+
+    // Returns the buffer index of the next full delimiter, or -1 if none is buffered
+    private int indexOfDelimiter() {
+        int last = limit - delimiter.length;
+        outer:
+        for (int i = pos; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a CRLF terminated line from the buffer, decoding it as UTF-8.
+     *
+     * @return The line without its terminator.
+     * @throws IOException If the line is too long or the body ends early.
+     */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = pos; i + 1 < limit; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                    String line = new String(buf, pos, i - pos, StandardCharsets.UTF_8);
+                    pos = i + 2;
+                    return line;
+                }
+            }
+            if (limit - pos > MAX_HEADER_LINE) {
+                throw new MultipartException(400, "Bad Request", "Multipart header line too long");
+            }
+            if (!fill()) {
+                throw new MultipartException(400, "Bad Request", "Unexpected end of multipart body");
+            }
+        }
+    }
+
+    // Fills the buffer until at least count unread bytes are available
+    private void ensure(int count) throws IOException {
+        while (limit - pos < count) {
+            if (!fill()) {
+                throw new MultipartException(400, "Bad Request", "Unexpected end of multipart body");
+            }
+        }
+    }
+
+    /**
+     * Moves unread bytes to the front of the buffer and reads more from the stream.
+     *
+     * @return True if at least one byte was read, false if the body has been fully consumed.
+     * @throws IOException If reading from the stream fails.
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (remaining <= 0 || limit == buf.length) {
+            return false;
+        }
+        int n = in.read(buf, limit, (int) Math.min(buf.length - limit, remaining));
+        if (n < 0) {
+            return false;
+        }
+        limit += n;
+        remaining -= n;
+        return true;
+    }
+
+    /**
+     * Parses a parameter value such as name="field" out of a header value.
+     *
+     * Parameters are separated by semicolons, and quoted values may contain semicolons
+     * and backslash escaped quotes. Parameters without a value are skipped.
+     *
+     * @param header The full header value.
+     * @param key The parameter name to look up, compared case insensitively.
+     * @return The unquoted parameter value, or null if the parameter is not present.
+     */
+    static String parseParameter(String header, String key) {
+        int length = header.length();
+        int i = header.indexOf(';');
+        while (i >= 0 && i < length) {
+            // The parameter name ends at '=', or at the next ';' if the parameter has no value
+            int j = i + 1;
+            while (j < length && header.charAt(j) != '=' && header.charAt(j) != ';') {
+                j++;
+            }
+            if (j >= length) {
+                return null;
+            }
+            if (header.charAt(j) == ';') {
+                i = j;
+                continue;
+            }
+            String paramName = header.substring(i + 1, j).trim();
+
+            // Read either a quoted string or a token up to the next semicolon
+            StringBuilder value = new StringBuilder();
+            j++;
+            while (j < length && header.charAt(j) == ' ') {
+                j++;
+            }
+            if (j < length && header.charAt(j) == '"') {
+                j++;
+                while (j < length && header.charAt(j) != '"') {
+                    char c = header.charAt(j);
+                    if (c == '\\' && j + 1 < length) {
+                        c = header.charAt(++j);
+                    }
+                    value.append(c);
+                    j++;
+                }
+                j = header.indexOf(';', j);
+            } else {
+                int end = header.indexOf(';', j);
+                value.append(header, j, end < 0 ? length : end);
+                j = end;
+            }
+
+            if (paramName.equalsIgnoreCase(key)) {
+                return value.toString().trim();
+            }
+            i = j;
+        }
+        return null;
+    }
+
+    /**
+     * Collects the content of a single part, switching from memory to a temporary
+     * file once the part crosses the memory threshold or the parts held in memory
+     * would exceed the memory cap.
+     */
+    private class PartSink {
+
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        Path file;
+        FileChannel channel;
+        long size;
+
+        // Appends bytes to the part, enforcing the per-part and total size limits
+        void write(byte[] bytes, int off, int len) throws IOException {
+            size += len;
+            if (size > maxPartSize) {
+                throw new MultipartException(413, "Payload Too Large",
+                        "Multipart part exceeds limit of " + maxPartSize + " bytes");
+            }
+            try {
+                if (channel == null && (size > memoryThreshold || memoryUsed + len > maxMemorySize)) {
+                    file = tempDir != null
+                            ? Files.createTempFile(tempDir, "multipart-", ".tmp")
+                            : Files.createTempFile("multipart-", ".tmp");
+                    channel = FileChannel.open(file, StandardOpenOption.WRITE);
+                    writeFully(ByteBuffer.wrap(memory.toByteArray()));
+                    memoryUsed -= memory.size();
+                    memory = null;
+                }
+                if (channel != null) {
+                    writeFully(ByteBuffer.wrap(bytes, off, len));
+                } else {
+                    memory.write(bytes, off, len);
+                    memoryUsed += len;
+                }
+            } catch (IOException e) {
+                throw spoolFailure(e);
+            }
+        }
+
+        // Writes the whole buffer to the channel, which may take several calls
+        void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        // Closes the spool file channel, if one was opened
+        void close() throws IOException {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw spoolFailure(e);
+                }
+            }
+        }
+
+        // Disk errors while spooling are the server's fault, not the client's
+        MultipartException spoolFailure(IOException e) {
+            return new MultipartException(500, "Internal Server Error",
+                    "Could not spool multipart part to disk: " + e);
+        }
+
+        // Closes and deletes the spool file after a failure
+        void discard() {
+            try {
+                close();
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
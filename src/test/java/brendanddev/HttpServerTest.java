@@ -2,20 +2,29 @@ package brendanddev;
 
 import org.junit.jupiter.api.Test;
 
+import brendanddev.model.MultipartPart;
 import brendanddev.server.HttpResponse;
 import brendanddev.server.HttpServer;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Unit tests for the HttpServer class
@@ -109,6 +118,205 @@ public class HttpServerTest {
         executor.shutdown();
     }
 
+    /**
+     * Tests that a multipart upload sent over a socket reaches the handler with its binary
+     * content intact, and that the temporary file for the spooled part is deleted afterwards.
+     * 
+     * @throws Exception if the server fails to start, requests cannot be sent,
+     *                   or responses cannot be read.
+     */
+    @Test
+    void testMultipartUpload() throws Exception {
+        AtomicReference<String> message = new AtomicReference<>();
+        AtomicReference<byte[]> content = new AtomicReference<>();
+        AtomicReference<Path> spooledFile = new AtomicReference<>();
+
+        HttpServer server = new HttpServer(8081);
+        server.setMultipartLimits(1024, 1_000_000, 1_000_000, 2_000_000, null);
+        server.addRoute("POST", "/upload", (req, body) -> {
+            try {
+                MultipartPart file = req.getPart("file");
+                message.set(req.getPart("message").getString());
+                content.set(file.getBytes());
+                spooledFile.set(file.getFile());
+                return new HttpResponse("parts=" + req.getParts().size(), 200, "OK");
+            } catch (java.io.IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        startServer(server, 8081);
+
+        // Binary content with every byte value, including CR, LF, and invalid UTF-8 sequences
+        byte[] fileBytes = new byte[50_000];
+        new Random(42).nextBytes(fileBytes);
+
+        String boundary = "TestBoundary123";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"message\"\r\n\r\nh\u00e9llo\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(fileBytes);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        // Lowercase header names must still be recognized
+        String response = sendRawRequest(8081, "POST /upload HTTP/1.1\r\n"
+                + "content-type: multipart/form-data; boundary=" + boundary + "\r\n"
+                + "content-length: " + body.size() + "\r\n\r\n", body.toByteArray());
+
+        assertEquals("200", statusCode(response));
+        assertEquals("parts=2", responseBody(response));
+        assertEquals("h\u00e9llo", message.get());
+        assertArrayEquals(fileBytes, content.get());
+
+        // The spooled file is deleted right after the response is sent
+        for (int i = 0; i < 50 && Files.exists(spooledFile.get()); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(Files.exists(spooledFile.get()));
+    }
+
+    /**
+     * Tests that a non-multipart body containing multi-byte UTF-8 characters is read in full,
+     * using the byte count from Content-Length rather than a character count.
+     * 
+     * @throws Exception if the server fails to start, requests cannot be sent,
+     *                   or responses cannot be read.
+     */
+    @Test
+    void testUtf8Body() throws Exception {
+        HttpServer server = new HttpServer(8082);
+        server.addRoute("POST", "/echo", (req, body) -> new HttpResponse(body, 200, "OK"));
+        startServer(server, 8082);
+
+        byte[] body = "message=h\u00e9llo w\u00f6rld \u2713".getBytes(StandardCharsets.UTF_8);
+        String response = sendRawRequest(8082, "POST /echo HTTP/1.1\r\n"
+                + "Content-Length: " + body.length + "\r\n\r\n", body);
+
+        assertEquals("200", statusCode(response));
+        assertEquals("message=h\u00e9llo w\u00f6rld \u2713", responseBody(response));
+    }
+
+    /**
+     * Tests that malformed or oversized requests are answered with 400 or 413 instead of
+     * dropping the connection, and that the server keeps serving requests afterwards.
+     * 
+     * @throws Exception if the server fails to start, requests cannot be sent,
+     *                   or responses cannot be read.
+     */
+    @Test
+    void testRejectedRequests() throws Exception {
+        HttpServer server = new HttpServer(8083);
+        server.addRoute("POST", "/upload", (req, body) -> new HttpResponse("OK", 200, "OK"));
+        server.addRoute("GET", "/", (req, body) -> new HttpResponse("Hello World", 200, "OK"));
+        startServer(server, 8083);
+
+        String multipart = "Content-Type: multipart/form-data; boundary=abc\r\n";
+
+        // Content-Length beyond the range of an int and above the total limit
+        assertEquals("413", statusCode(sendRawRequest(8083, "POST /upload HTTP/1.1\r\n"
+                + multipart + "Content-Length: 3000000000\r\n\r\n", new byte[0])));
+
+        // Malformed and negative Content-Length
+        assertEquals("400", statusCode(sendRawRequest(8083, "POST /upload HTTP/1.1\r\n"
+                + multipart + "Content-Length: abc\r\n\r\n", new byte[0])));
+        assertEquals("400", statusCode(sendRawRequest(8083, "POST /upload HTTP/1.1\r\n"
+                + multipart + "Content-Length: -5\r\n\r\n", new byte[0])));
+
+        // multipart/form-data without a boundary
+        assertEquals("400", statusCode(sendRawRequest(8083, "POST /upload HTTP/1.1\r\n"
+                + "Content-Type: multipart/form-data\r\nContent-Length: 0\r\n\r\n", new byte[0])));
+
+        // Malformed request line
+        assertEquals("400", statusCode(sendRawRequest(8083, "NONSENSE\r\n\r\n", new byte[0])));
+
+        // Repeating one header name still counts towards the header limit
+        assertEquals("400", statusCode(sendRawRequest(8083, "GET / HTTP/1.1\r\n"
+                + "X-Repeated: value\r\n".repeat(101) + "\r\n", new byte[0])));
+
+        // Unknown routes are answered with 404 before the body is parsed
+        assertEquals("404", statusCode(sendRawRequest(8083, "POST /nowhere HTTP/1.1\r\n"
+                + multipart + "Content-Length: 3000000000\r\n\r\n", new byte[0])));
+
+        // A connection that closes without sending anything does not stop the server
+        new java.net.Socket("localhost", 8083).close();
+        assertEquals("Hello World", sendGetRequest("http://localhost:8083/"));
+    }
+
+    /**
+     * Tests that an upload which cannot be spooled to disk is answered with 500,
+     * since the failure is on the server side rather than in the request.
+     * 
+     * @throws Exception if the server fails to start, requests cannot be sent,
+     *                   or responses cannot be read.
+     */
+    @Test
+    void testUnwritableTempDir() throws Exception {
+        Path missingDir = Files.createTempDirectory("multipart-test").resolve("missing");
+
+        HttpServer server = new HttpServer(8084);
+        server.setMultipartLimits(1024, 1_000_000, 1_000_000, 2_000_000, missingDir);
+        server.addRoute("POST", "/upload", (req, body) -> new HttpResponse("OK", 200, "OK"));
+        startServer(server, 8084);
+
+        String boundary = "TestBoundary123";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(new byte[5000]);
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        String response = sendRawRequest(8084, "POST /upload HTTP/1.1\r\n"
+                + "Content-Type: multipart/form-data; boundary=" + boundary + "\r\n"
+                + "Content-Length: " + body.size() + "\r\n\r\n", body.toByteArray());
+
+        assertEquals("500", statusCode(response));
+    }
+
+    /**
+     * Starts the server in a separate daemon thread and waits until it accepts connections.
+     * 
+     * @param server The server to start.
+     * @param port The port the server listens on.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private void startServer(HttpServer server, int port) throws InterruptedException {
+        Thread serverThread = new Thread(server::start);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForServer(port);
+    }
+
+    /**
+     * Sends raw request bytes over a socket and returns the full response.
+     * 
+     * @param port The port to connect to.
+     * @param head The request line and headers, including the blank line that ends them.
+     * @param body The request body bytes.
+     * @return The full response, decoded as UTF-8.
+     * @throws Exception If an error occurs while sending the request or reading the response.
+     */
+    private String sendRawRequest(int port, String head, byte[] body) throws Exception {
+        try (java.net.Socket socket = new java.net.Socket("localhost", port)) {
+            socket.getOutputStream().write(head.getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().write(body);
+            socket.getOutputStream().flush();
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Returns the status code from the status line of a raw response
+    private String statusCode(String response) {
+        return response.split(" ")[1];
+    }
+
+    // Returns the body of a raw response
+    private String responseBody(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+
     /**
      * Sends a simple HTTP GET request to the given URL and returns the first line of the response.
      * 
@@ -0,0 +1,366 @@
+package brendanddev;
+
+import org.junit.jupiter.api.Test;
+
+import brendanddev.model.MultipartPart;
+import brendanddev.server.MultipartException;
+import brendanddev.server.MultipartParser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for the MultipartParser class
+ */
+public class MultipartParserTest {
+
+    private static final String BOUNDARY = "----FormBoundary7MA4YWxkTrZu0gW";
+
+    /**
+     * Tests that small form fields are parsed and kept in memory.
+     *
+     * @throws Exception if the body cannot be parsed.
+     */
+    @Test
+    void testSmallFieldsInMemory() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeField(body, "message", "Hello World");
+        writeField(body, "other", "second value");
+        writeClose(body);
+
+        List<MultipartPart> parts = parse(body.toByteArray(), 1024, 1_000_000, 4096, 8192);
+
+        assertEquals(2, parts.size());
+        assertEquals("message", parts.get(0).getName());
+        assertNull(parts.get(0).getFilename());
+        assertTrue(parts.get(0).isInMemory());
+        assertEquals("Hello World", parts.get(0).getString());
+        assertEquals("second value", parts.get(1).getString());
+    }
+
+    /**
+     * Tests that a large binary part is spooled to disk without corrupting its bytes,
+     * even when the content contains CR, LF, and dash bytes that resemble a boundary.
+     *
+     * @throws Exception if the body cannot be parsed.
+     */
+    @Test
+    void testLargeBinaryPartSpooledToDisk() throws Exception {
+        byte[] content = new byte[100_000];
+        new Random(42).nextBytes(content);
+        byte[] nearBoundary = ("\r\n--" + BOUNDARY.substring(0, 10)).getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(nearBoundary, 0, content, 8190, nearBoundary.length);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeField(body, "message", "upload");
+        writeFile(body, "file", "data.bin", content);
+        writeClose(body);
+
+        List<MultipartPart> parts = parse(body.toByteArray(), 1024, 1_000_000, 1_000_000, 2_000_000);
+        MultipartPart file = parts.get(1);
+        try {
+            assertEquals("data.bin", file.getFilename());
+            assertEquals("application/octet-stream", file.getContentType());
+            assertFalse(file.isInMemory());
+            assertEquals(content.length, file.getSize());
+            assertArrayEquals(content, Files.readAllBytes(file.getFile()));
+        } finally {
+            file.delete();
+        }
+        assertFalse(Files.exists(file.getFile()));
+    }
+
+    /**
+     * Tests that a part larger than the per-part limit is rejected with 413.
+     */
+    @Test
+    void testPartSizeLimit() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeFile(body, "file", "big.bin", new byte[5000]);
+        writeClose(body);
+
+        MultipartException e = assertThrows(MultipartException.class,
+                () -> parse(body.toByteArray(), 1024, 1_000_000, 4096, 1_000_000));
+        assertEquals(413, e.getStatusCode());
+    }
+
+    /**
+     * Tests that a body larger than the total limit is rejected with 413.
+     */
+    @Test
+    void testTotalSizeLimit() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeField(body, "message", "Hello World");
+        writeClose(body);
+
+        MultipartException e = assertThrows(MultipartException.class,
+                () -> parse(body.toByteArray(), 1024, 1_000_000, 4096, 16));
+        assertEquals(413, e.getStatusCode());
+    }
+
+    /**
+     * Tests that a body missing its closing boundary is rejected with 400.
+     */
+    @Test
+    void testTruncatedBody() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeField(body, "message", "Hello World");
+
+        MultipartException e = assertThrows(MultipartException.class,
+                () -> parse(body.toByteArray(), 1024, 1_000_000, 4096, 8192));
+        assertEquals(400, e.getStatusCode());
+    }
+
+    /**
+     * Tests that a body read a few bytes at a time, so delimiters are split across reads,
+     * parses to the same content as a body read in one go.
+     *
+     * @throws Exception if the body cannot be parsed.
+     */
+    @Test
+    void testTrickledStream() throws Exception {
+        byte[] content = new byte[3000];
+        new Random(7).nextBytes(content);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeField(body, "message", "Hello World");
+        writeFile(body, "file", "data.bin", content);
+        writeClose(body);
+
+        byte[] bytes = body.toByteArray();
+        MultipartParser parser = new MultipartParser(BOUNDARY, 1024, 1_000_000, 4096, 8192, null);
+        List<MultipartPart> parts = parser.parse(new TrickleInputStream(bytes, 3), bytes.length);
+        try {
+            assertEquals(2, parts.size());
+            assertEquals("Hello World", parts.get(0).getString());
+            assertFalse(parts.get(1).isInMemory());
+            assertArrayEquals(content, parts.get(1).getBytes());
+        } finally {
+            parts.get(1).delete();
+        }
+    }
+
+    /**
+     * Tests that a part exactly at the memory threshold stays in memory,
+     * while a part one byte larger is spooled to disk.
+     *
+     * @throws Exception if the body cannot be parsed.
+     */
+    @Test
+    void testPartAtMemoryThreshold() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeFile(body, "exact", "exact.bin", new byte[1024]);
+        writeFile(body, "over", "over.bin", new byte[1025]);
+        writeClose(body);
+
+        List<MultipartPart> parts = parse(body.toByteArray(), 1024, 1_000_000, 4096, 8192);
+        try {
+            assertTrue(parts.get(0).isInMemory());
+            assertEquals(1024, parts.get(0).getSize());
+            assertFalse(parts.get(1).isInMemory());
+            assertEquals(1025, parts.get(1).getSize());
+        } finally {
+            parts.get(1).delete();
+        }
+    }
+
+    /**
+     * Tests that many small parts stop being held in memory once the memory cap is reached.
+     *
+     * @throws Exception if the body cannot be parsed.
+     */
+    @Test
+    void testMemoryCapAcrossParts() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            writeField(body, "field" + i, "x".repeat(1000));
+        }
+        writeClose(body);
+
+        List<MultipartPart> parts = parse(body.toByteArray(), 1024, 4000, 4096, 100_000);
+        try {
+            assertEquals(10, parts.size());
+            long inMemory = 0;
+            for (MultipartPart part : parts) {
+                assertEquals("x".repeat(1000), part.getString());
+                if (part.isInMemory()) {
+                    inMemory += part.getSize();
+                }
+            }
+            assertEquals(4000, inMemory);
+            assertTrue(parts.get(0).isInMemory());
+            assertFalse(parts.get(9).isInMemory());
+        } finally {
+            for (MultipartPart part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Tests that text before the first boundary is ignored as preamble.
+     *
+     * @throws Exception if the body cannot be parsed.
+     */
+    @Test
+    void testPreambleIgnored() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes("This is the preamble.\r\n".getBytes(StandardCharsets.UTF_8));
+        writeField(body, "message", "Hello World");
+        writeClose(body);
+
+        List<MultipartPart> parts = parse(body.toByteArray(), 1024, 1_000_000, 4096, 8192);
+
+        assertEquals(1, parts.size());
+        assertEquals("Hello World", parts.get(0).getString());
+    }
+
+    /**
+     * Tests that a part with too many headers is rejected with 400.
+     */
+    @Test
+    void testTooManyPartHeaders() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        StringBuilder headers = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            headers.append("X-Header-").append(i).append(": value\r\n");
+        }
+        body.writeBytes(("--" + BOUNDARY + "\r\n" + headers
+                + "Content-Disposition: form-data; name=\"message\"\r\n\r\nHello\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+        writeClose(body);
+
+        MultipartException e = assertThrows(MultipartException.class,
+                () -> parse(body.toByteArray(), 1024, 1_000_000, 4096, 8192));
+        assertEquals(400, e.getStatusCode());
+    }
+
+    /**
+     * Tests that repeating one header name still counts towards the header limit.
+     */
+    @Test
+    void testRepeatedPartHeaders() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n" + "X-Repeated: value\r\n".repeat(100)
+                + "Content-Disposition: form-data; name=\"message\"\r\n\r\nHello\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+        writeClose(body);
+
+        MultipartException e = assertThrows(MultipartException.class,
+                () -> parse(body.toByteArray(), 1024, 1_000_000, 4096, 8192));
+        assertEquals(400, e.getStatusCode());
+    }
+
+    /**
+     * Tests that a failure to spool a part to disk is reported as a 500 server error
+     * rather than blamed on the client.
+     *
+     * @throws Exception if the temporary directory cannot be created.
+     */
+    @Test
+    void testUnwritableTempDir() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeFile(body, "file", "data.bin", new byte[5000]);
+        writeClose(body);
+
+        byte[] bytes = body.toByteArray();
+        Path missingDir = Files.createTempDirectory("multipart-test").resolve("missing");
+        MultipartParser parser = new MultipartParser(BOUNDARY, 1024, 1_000_000, 1_000_000, 1_000_000, missingDir);
+
+        MultipartException e = assertThrows(MultipartException.class,
+                () -> parser.parse(new ByteArrayInputStream(bytes), bytes.length));
+        assertEquals(500, e.getStatusCode());
+    }
+
+    /**
+     * Tests that the boundary is extracted from quoted and unquoted Content-Type headers.
+     */
+    @Test
+    void testExtractBoundary() {
+        assertEquals("abc", MultipartParser.extractBoundary("multipart/form-data; boundary=abc"));
+        assertEquals("a;b", MultipartParser.extractBoundary("multipart/form-data; boundary=\"a;b\""));
+        assertNull(MultipartParser.extractBoundary("application/x-www-form-urlencoded"));
+        assertNull(MultipartParser.extractBoundary("multipart/form-data"));
+    }
+
+    /**
+     * Tests that parameters without a value are skipped when looking up a Content-Disposition name.
+     *
+     * @throws Exception if the body cannot be parsed.
+     */
+    @Test
+    void testParameterWithoutValue() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; foo; name=\"a\"\r\n\r\nvalue\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+        writeClose(body);
+
+        List<MultipartPart> parts = parse(body.toByteArray(), 1024, 1_000_000, 4096, 8192);
+
+        assertEquals("a", parts.get(0).getName());
+        assertEquals("value", parts.get(0).getString());
+    }
+
+    /**
+     * Parses a multipart body with the given limits, spooling large parts to the default temp directory.
+     * The limits are passed in the same order as the MultipartParser constructor takes them.
+     */
+    private List<MultipartPart> parse(byte[] body, long threshold, long maxMemory, long maxPart, long maxTotal)
+            throws Exception {
+        MultipartParser parser = new MultipartParser(BOUNDARY, threshold, maxMemory, maxPart, maxTotal, null);
+        return parser.parse(new ByteArrayInputStream(body), body.length);
+    }
+
+    // Writes a plain form field part to the body
+    private void writeField(ByteArrayOutputStream body, String name, String value) {
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n"
+                + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Writes a file upload part to the body
+    private void writeFile(ByteArrayOutputStream body, String name, String filename, byte[] content) {
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content);
+        body.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Writes the closing boundary to the body
+    private void writeClose(ByteArrayOutputStream body) {
+        body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * An input stream that returns at most a few bytes per read, simulating a slow network.
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+
+        private final int chunkSize;
+
+        TrickleInputStream(byte[] bytes, int chunkSize) {
+            super(bytes);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+
+}